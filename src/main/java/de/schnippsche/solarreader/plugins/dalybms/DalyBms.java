@@ -74,12 +74,29 @@ public class DalyBms extends AbstractUsbProvider {
   private static final String COUNT_SENSORS = "count_sensors";
   private static final int MAX_RETRIES = 2;
   private static final int RETRY_DELAY_MILLIS = 100;
+  private static final String CYCLE_BUDGET_SECONDS = "cycle_budget_seconds";
+  private static final int DEFAULT_INTERVAL_SECONDS = 60;
+  // half of the default activity interval, a changed interval is not taken into account
+  private static final int DEFAULT_CYCLE_BUDGET_SECONDS = DEFAULT_INTERVAL_SECONDS / 2;
+  private static final String FRESH_COMMANDS = "fresh_commands";
+  private static final String STALE_COMMANDS = "stale_commands";
+  private static final String CACHED_COMMANDS = "cached_commands";
+  private static final String CYCLE_DURATION_MS = "cycle_duration_ms";
+  private static final int PRIORITY_HIGH = 0;
+  private static final int PRIORITY_NORMAL = 1;
+  private static final int PRIORITY_LOW = 2;
   private final Protocol<DalyFrame> protocol;
   private final ByteArrayCalculator byteArrayCalculator;
   private DayValue entladeWh;
   private DayValue ladeWh;
   private Integer countSensors;
   private Integer countCells;
+  private final List<String> freshCommands;
+  private final List<String> staleCommands;
+  private final List<String> cachedCommands;
+  private boolean cycleActive;
+  private long cycleStartNanos;
+  private long cycleDeadlineNanos;
 
   /**
    * Constructs a new instance of the {@link DalyBms} class using the default USB connection
@@ -105,6 +122,9 @@ public class DalyBms extends AbstractUsbProvider {
     this.countCells = 16;
     this.countSensors = 8;
     this.byteArrayCalculator = new ByteArrayCalculator();
+    this.freshCommands = new ArrayList<>();
+    this.staleCommands = new ArrayList<>();
+    this.cachedCommands = new ArrayList<>();
     Logger.debug("instantiate {}", this.getClass().getName());
   }
 
@@ -132,7 +152,8 @@ public class DalyBms extends AbstractUsbProvider {
 
   @Override
   public Activity getDefaultActivity() {
-    return new Activity(TimeEvent.SUNRISE, -60, TimeEvent.SUNSET, 3600, 60, TimeUnit.SECONDS);
+    return new Activity(
+        TimeEvent.SUNRISE, -60, TimeEvent.SUNSET, 3600, DEFAULT_INTERVAL_SECONDS, TimeUnit.SECONDS);
   }
 
   @Override
@@ -150,6 +171,19 @@ public class DalyBms extends AbstractUsbProvider {
             .withTooltip(resourceBundle.getString("dalybms.address.tooltip"))
             .withInvalidFeedback(resourceBundle.getString("dalybms.address.error"))
             .build());
+    uiList.addElement(
+        new UIInputElementBuilder()
+            .withId("id-cycle-budget")
+            .withRequired(false)
+            .withType(HtmlInputType.TEXT)
+            .withColumnWidth(HtmlWidth.HALF)
+            .withLabel(resourceBundle.getString("dalybms.cyclebudget.text"))
+            .withName(CYCLE_BUDGET_SECONDS)
+            .withPattern("^[1-9][0-9]*$")
+            .withPlaceholder(String.valueOf(DEFAULT_CYCLE_BUDGET_SECONDS))
+            .withTooltip(resourceBundle.getString("dalybms.cyclebudget.tooltip"))
+            .withInvalidFeedback(resourceBundle.getString("dalybms.cyclebudget.error"))
+            .build());
     return Optional.of(uiList);
   }
 
@@ -159,7 +193,10 @@ public class DalyBms extends AbstractUsbProvider {
     Optional<List<ProviderProperty>> defaultProperties =
         getSupportedPropertiesFromFile("dalybms_fields.json");
     defaultProperties.ifPresent(allProperties::addAll);
-    allProperties.add(getCellProperties());
+    // the properties are polled in list order: the cell voltages follow 0x90 so that both high
+    // priority commands are read first, the low priority commands 0x97 and 0x98 stay last.
+    // Properties are identified by name, so stored configurations are not affected by the order.
+    allProperties.add(getCellPropertiesIndex(allProperties), getCellProperties());
     allProperties.add(getSensorProperties());
     allProperties.add(getStateProperty());
     allProperties.add(getErrorProperties());
@@ -308,11 +345,13 @@ public class DalyBms extends AbstractUsbProvider {
 
   @Override
   public boolean doActivityWork(Map<String, Object> variables) throws InterruptedException {
+    startCycle();
     try (UsbConnection usbConnection = getConnection()) {
       usbConnection.connect();
       variables.put(COUNT_CELLS, BigDecimal.valueOf(countCells));
       variables.put(COUNT_SENSORS, BigDecimal.valueOf(countSensors));
       workProperties(usbConnection, variables);
+      publishCycleState(variables);
       // DayValues
       ladeWh.addValue(variables.get(LADELEISTUNG));
       variables.put(LADE_WH, ladeWh.getTotalValue());
@@ -322,6 +361,88 @@ public class DalyBms extends AbstractUsbProvider {
     } catch (IOException e) {
       Logger.error(e.getMessage());
       return false;
+    } finally {
+      cycleActive = false;
+    }
+  }
+
+  /**
+   * Starts a new polling cycle and sets its deadline from the configured cycle budget. Until the
+   * cycle ends, every command read checks the remaining budget before it is sent.
+   */
+  private void startCycle() {
+    int budgetSeconds =
+        providerData
+            .getSetting()
+            .getConfigurationValueAsInteger(CYCLE_BUDGET_SECONDS, DEFAULT_CYCLE_BUDGET_SECONDS);
+    if (budgetSeconds <= 0) {
+      Logger.warn(
+          "invalid cycle budget {}, using {} seconds", budgetSeconds, DEFAULT_CYCLE_BUDGET_SECONDS);
+      budgetSeconds = DEFAULT_CYCLE_BUDGET_SECONDS;
+    }
+    freshCommands.clear();
+    staleCommands.clear();
+    cachedCommands.clear();
+    cycleStartNanos = System.nanoTime();
+    cycleDeadlineNanos = cycleStartNanos + TimeUnit.SECONDS.toNanos(budgetSeconds);
+    cycleActive = true;
+  }
+
+  private void publishCycleState(Map<String, Object> variables) {
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cycleStartNanos);
+    variables.put(FRESH_COMMANDS, String.join(",", freshCommands));
+    variables.put(STALE_COMMANDS, String.join(",", staleCommands));
+    variables.put(CACHED_COMMANDS, String.join(",", cachedCommands));
+    variables.put(CYCLE_DURATION_MS, BigDecimal.valueOf(elapsedMillis));
+    if (!staleCommands.isEmpty()) {
+      Logger.warn("cycle budget too low, stale commands: {}", staleCommands);
+    }
+  }
+
+  private long getRemainingCycleNanos() {
+    return cycleDeadlineNanos - System.nanoTime();
+  }
+
+  private boolean isCycleBudgetExhausted() {
+    return cycleActive && getRemainingCycleNanos() <= 0;
+  }
+
+  /**
+   * Checks whether the remaining cycle budget is still large enough to read the given command. High
+   * priority commands are read until the deadline has passed, lower priority commands need one read
+   * timeout of remaining budget per priority level.
+   */
+  private boolean hasBudgetFor(CommandProviderProperty property) {
+    if (!cycleActive) {
+      return true;
+    }
+    long reserveNanos =
+        TimeUnit.MILLISECONDS.toNanos(providerData.getSetting().getReadTimeoutMilliseconds())
+            * getCommandPriority(property.getCommand());
+    return getRemainingCycleNanos() > reserveNanos;
+  }
+
+  private int getCellPropertiesIndex(List<ProviderProperty> properties) {
+    for (int i = 0; i < properties.size(); i++) {
+      ProviderProperty property = properties.get(i);
+      if (property instanceof CommandProviderProperty
+          && "90".equals(((CommandProviderProperty) property).getCommand())) {
+        return i + 1;
+      }
+    }
+    return properties.size();
+  }
+
+  private int getCommandPriority(String command) {
+    switch (command) {
+      case "90":
+      case "95":
+        return PRIORITY_HIGH;
+      case "97":
+      case "98":
+        return PRIORITY_LOW;
+      default:
+        return PRIORITY_NORMAL;
     }
   }
 
@@ -428,7 +549,10 @@ public class DalyBms extends AbstractUsbProvider {
     int id = Integer.parseInt(command, 16);
     DalyFrame sendFrame = new DalyFrame(address, id);
     DalyFrame receivedFrame;
-    for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+    if (isCycleBudgetExhausted()) {
+      throw new CycleBudgetExhaustedException(command);
+    }
+    for (int attempt = 1; attempt <= MAX_RETRIES && !isCycleBudgetExhausted(); attempt++) {
       protocol.sendData(usbConnection, sendFrame);
       int maxFrames = 1;
       if (id == 0x95) maxFrames = countCells / 3 + 1;
@@ -491,6 +615,9 @@ public class DalyBms extends AbstractUsbProvider {
     try {
       buildAndSendFrame(usbConnection, providerAddress, variables, property);
       return true;
+    } catch (CycleBudgetExhaustedException e) {
+      Logger.debug(e.getMessage());
+      return false;
     } catch (IOException e) {
       Logger.error(e.getMessage());
       return false;
@@ -503,10 +630,20 @@ public class DalyBms extends AbstractUsbProvider {
       throws IOException, InterruptedException {
     final int providerAddress = providerData.getSetting().getProviderAddress();
     final int sleepDurationMs = providerData.getSetting().getSleepMilliseconds();
+    if (!hasBudgetFor(property)) {
+      handleStaleCommandProperty(property, variables);
+      return;
+    }
     for (int tries = 1; tries <= MAX_RETRIES; tries++) {
       Logger.debug("Attempt {}/{}", tries, MAX_RETRIES);
       if (tryToSendFrame(usbConnection, providerAddress, variables, property)) {
         Logger.debug("Frame successfully sent on attempt {}/{}", tries, MAX_RETRIES);
+        freshCommands.add(property.getName());
+        return;
+      }
+      if (isCycleBudgetExhausted()) {
+        // no time left for further retries, keep the cycle alive with the cached result
+        handleStaleCommandProperty(property, variables);
         return;
       }
       if (tries < MAX_RETRIES) {
@@ -525,5 +662,34 @@ public class DalyBms extends AbstractUsbProvider {
     byte[] content = (byte[]) commandProviderProperty.getCachedValue();
     byteArrayCalculator.calculate(
         content, commandProviderProperty.getPropertyFieldList(), variables);
+    cachedCommands.add(commandProviderProperty.getName());
+  }
+
+  /**
+   * Serves a command from its cached result because the cycle budget does not allow a fresh read.
+   * Commands without a cached result are skipped for this cycle, except the high priority commands:
+   * the calculations and day values depend on them, so the cycle fails instead.
+   */
+  private void handleStaleCommandProperty(
+      CommandProviderProperty property, Map<String, Object> variables) throws IOException {
+    Logger.debug("cycle budget too low for command '{}'", property.getName());
+    byte[] content = (byte[]) property.getCachedValue();
+    if (content == null && getCommandPriority(property.getCommand()) == PRIORITY_HIGH) {
+      throw new IOException(
+          "Cycle budget exhausted and no cached result for command " + property.getName());
+    }
+    staleCommands.add(property.getName());
+    if (content != null) {
+      byteArrayCalculator.calculate(content, property.getPropertyFieldList(), variables);
+    }
+  }
+
+  /** Signals that a command was not sent because the deadline of the current cycle has passed. */
+  private static class CycleBudgetExhaustedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CycleBudgetExhaustedException(String command) {
+      super("cycle budget exhausted, command " + command + " not sent");
+    }
   }
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2024-2025 Stefan Toengi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.schnippsche.solarreader.test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.withSettings;
+
+import de.schnippsche.solarreader.backend.connection.general.ConnectionFactory;
+import de.schnippsche.solarreader.backend.connection.usb.UsbConnection;
+import de.schnippsche.solarreader.backend.util.SerialPortConfigurationBuilder;
+import de.schnippsche.solarreader.backend.util.Setting;
+import de.schnippsche.solarreader.database.ProviderData;
+import de.schnippsche.solarreader.plugins.dalybms.DalyBms;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.tinylog.Logger;
+
+/**
+ * Long-running soak test for {@link DalyBms#doActivityWork(Map)} against the in-memory {@link
+ * DalyBmsUsbConnection}. It records cycle-time percentiles, allocated bytes per cycle and the slope
+ * of the retained heap and fails when one of them exceeds the stored baseline.
+ *
+ * <p>The simulated clock advances {@link LocalDate#now()} and {@link LocalDateTime#now()} by one
+ * day every {@code soak.cyclesPerDay} cycles, so the day values roll over as in production. Every
+ * second cycle runs with a budget below the read timeout, so the low priority commands are served
+ * from their cached frames, and every {@code soak.failEvery}-th command gets no answer and is
+ * retried.
+ *
+ * <p>The test is tagged {@code soak} and only runs with {@code mvn test -Psoak}. Options:
+ *
+ * <ul>
+ *   <li>{@code -Dsoak.cycles}: number of measured cycles, default 1,000,000
+ *   <li>{@code -Dsoak.log.level}: tinylog level, default info. Each level has its own baseline file
+ *       {@code src/test/resources/soak-baseline-<level>.properties}, so a debug run measures the
+ *       logging overhead against a debug baseline.
+ *   <li>{@code -Dsoak.tolerance}: allowed factor above the baseline, default 1.25
+ *   <li>{@code -Dsoak.updateBaseline=true}: writes the measured values as new baseline for the
+ *       current level instead of checking them. The baseline records the Java version, operating
+ *       system and cycle count it was measured with; regenerate it on the reference machine only.
+ * </ul>
+ *
+ * <p>Without a baseline file for the current level the test is skipped, so the regression gate is
+ * only active once a baseline has been measured and committed.
+ */
+@Tag("soak")
+class DalyBmsSoakTest {
+  private static final int WARMUP_CYCLES = 10_000;
+  private static final int HEAP_SAMPLES = 20;
+  private static final int MAX_GC_RUNS = 10;
+  private static final long HEAP_SLOPE_NOISE_BYTES = 64;
+  private static final int MAX_RECORDED_MICROS = 100_000;
+  private static final String LOW_BUDGET_SECONDS = "1";
+  private static final String NORMAL_BUDGET_SECONDS = "30";
+  private static final String P50_MICROS = "cycle.p50.micros";
+  private static final String P99_MICROS = "cycle.p99.micros";
+  private static final String P999_MICROS = "cycle.p999.micros";
+  private static final String ALLOCATED_BYTES = "allocated.bytes.per.cycle";
+  private static final String HEAP_SLOPE = "retained.heap.bytes.per.1000.cycles";
+  private LocalDate simulatedDate = LocalDate.of(2025, 1, 1);
+
+  @Test
+  void soak() throws Exception {
+    long cycles = Long.getLong("soak.cycles", 1_000_000L);
+    long cyclesPerDay = Long.getLong("soak.cyclesPerDay", 1440L);
+    double tolerance = Double.parseDouble(System.getProperty("soak.tolerance", "1.25"));
+    String logLevel = System.getProperty("soak.log.level", "info");
+    Path baselineFile =
+        Paths.get("src/test/resources", "soak-baseline-" + logLevel + ".properties");
+
+    boolean updateBaseline = Boolean.getBoolean("soak.updateBaseline");
+    Assumptions.assumeTrue(
+        updateBaseline || Files.exists(baselineFile),
+        () ->
+            String.format(
+                "no baseline %s, create it with -Dsoak.updateBaseline=true on the reference"
+                    + " machine",
+                baselineFile));
+
+    // stub only: the mocks must not record the invocations of millions of cycles
+    try (MockedStatic<LocalDate> localDate =
+            mockStatic(
+                LocalDate.class, withSettings().defaultAnswer(CALLS_REAL_METHODS).stubOnly());
+        MockedStatic<LocalDateTime> localDateTime =
+            mockStatic(
+                LocalDateTime.class,
+                withSettings().defaultAnswer(CALLS_REAL_METHODS).stubOnly())) {
+      localDate.when(() -> LocalDate.now()).thenAnswer(invocation -> simulatedDate);
+      localDate
+          .when(() -> LocalDate.now(any(ZoneId.class)))
+          .thenAnswer(invocation -> simulatedDate);
+      localDateTime
+          .when(() -> LocalDateTime.now())
+          .thenAnswer(invocation -> LocalDateTime.of(simulatedDate, LocalTime.now()));
+      localDateTime
+          .when(() -> LocalDateTime.now(any(ZoneId.class)))
+          .thenAnswer(invocation -> LocalDateTime.of(simulatedDate, LocalTime.now()));
+
+      DalyBmsUsbConnection connection = new DalyBmsUsbConnection();
+      connection.setFailEvery(Integer.getInteger("soak.failEvery", 97));
+      ProviderData providerData = new ProviderData();
+      DalyBms provider = createProvider(connection, providerData);
+      Setting setting = providerData.getSetting();
+      Map<String, Object> variables = new HashMap<>();
+      for (long cycle = 1; cycle <= WARMUP_CYCLES; cycle++) {
+        runCycle(provider, setting, variables, cycle, cyclesPerDay);
+      }
+
+      com.sun.management.ThreadMXBean threadBean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+      long[] histogram = new long[MAX_RECORDED_MICROS + 1];
+      long[] sampleCycles = new long[HEAP_SAMPLES + 1];
+      long[] heapSamples = new long[HEAP_SAMPLES + 1];
+      long sampleInterval = Math.max(1, cycles / HEAP_SAMPLES);
+      heapSamples[0] = settledUsedHeap(memoryBean);
+      int heapSampleCount = 1;
+
+      long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+      for (long cycle = 1; cycle <= cycles; cycle++) {
+        long start = System.nanoTime();
+        runCycle(provider, setting, variables, WARMUP_CYCLES + cycle, cyclesPerDay);
+        long micros = (System.nanoTime() - start) / 1000;
+        histogram[(int) Math.min(micros, MAX_RECORDED_MICROS)]++;
+        if (cycle % sampleInterval == 0 && heapSampleCount < heapSamples.length) {
+          // the settle phase allocates as well, keep it out of the per cycle allocation
+          long allocatedPause = threadBean.getThreadAllocatedBytes(threadId);
+          sampleCycles[heapSampleCount] = cycle;
+          heapSamples[heapSampleCount++] = settledUsedHeap(memoryBean);
+          allocatedBefore += threadBean.getThreadAllocatedBytes(threadId) - allocatedPause;
+        }
+      }
+      long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+      Properties measured = new Properties();
+      measured.setProperty(P50_MICROS, String.valueOf(percentile(histogram, cycles, 0.5)));
+      measured.setProperty(P99_MICROS, String.valueOf(percentile(histogram, cycles, 0.99)));
+      measured.setProperty(P999_MICROS, String.valueOf(percentile(histogram, cycles, 0.999)));
+      measured.setProperty(ALLOCATED_BYTES, String.valueOf(allocatedBytes / cycles));
+      measured.setProperty(
+          HEAP_SLOPE, String.valueOf(heapSlope(sampleCycles, heapSamples, heapSampleCount)));
+      Logger.info("soak test after {} cycles at level {}: {}", cycles, logLevel, measured);
+
+      if (updateBaseline) {
+        writeBaseline(baselineFile, measured, cycles, logLevel);
+        return;
+      }
+      checkBaseline(baselineFile, measured, tolerance);
+    }
+  }
+
+  private DalyBms createProvider(DalyBmsUsbConnection connection, ProviderData providerData)
+      throws IOException {
+    ConnectionFactory<UsbConnection> testFactory = knownConfiguration -> connection;
+    providerData.setName("DalyBMS Soak");
+    providerData.setPluginName("DalyBms");
+    DalyBms provider = new DalyBms(testFactory);
+    // no sleep between commands, the in-memory connection answers immediately
+    providerData.setSetting(
+        new SerialPortConfigurationBuilder()
+            .withBaudrate(9600)
+            .withSleepMilliseconds(0)
+            .withReadTimeoutMilliseconds(5000)
+            .withProviderAddress(64)
+            .build());
+    provider.setProviderData(providerData);
+    provider.doOnFirstRun();
+    return provider;
+  }
+
+  private void runCycle(
+      DalyBms provider,
+      Setting setting,
+      Map<String, Object> variables,
+      long cycle,
+      long cyclesPerDay)
+      throws InterruptedException {
+    if (cycle % cyclesPerDay == 0) {
+      simulatedDate = simulatedDate.plusDays(1);
+    }
+    // a budget below the read timeout serves all but the high priority commands from the cache
+    setting.setConfigurationValue(
+        "cycle_budget_seconds", cycle % 2 == 0 ? LOW_BUDGET_SECONDS : NORMAL_BUDGET_SECONDS);
+    variables.clear();
+    boolean result = provider.doActivityWork(variables);
+    assert result : "activity cycle " + cycle + " failed";
+  }
+
+  /** Runs the garbage collector until the used heap no longer shrinks noticeably. */
+  private long settledUsedHeap(MemoryMXBean memoryBean) throws InterruptedException {
+    long previous = Long.MAX_VALUE;
+    long used = 0;
+    for (int run = 0; run < MAX_GC_RUNS; run++) {
+      System.gc();
+      Thread.sleep(20);
+      used = memoryBean.getHeapMemoryUsage().getUsed();
+      if (previous - used < previous / 100) {
+        break;
+      }
+      previous = used;
+    }
+    return used;
+  }
+
+  /** Least-squares slope of the retained heap over all samples, in bytes per 1000 cycles. */
+  private long heapSlope(long[] cycles, long[] heap, int count) {
+    double meanCycle = 0;
+    double meanHeap = 0;
+    for (int i = 0; i < count; i++) {
+      meanCycle += cycles[i];
+      meanHeap += heap[i];
+    }
+    meanCycle /= count;
+    meanHeap /= count;
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < count; i++) {
+      covariance += (cycles[i] - meanCycle) * (heap[i] - meanHeap);
+      variance += (cycles[i] - meanCycle) * (cycles[i] - meanCycle);
+    }
+    return variance == 0 ? 0 : Math.round(covariance / variance * 1000);
+  }
+
+  private long percentile(long[] histogram, long count, double percentile) {
+    long threshold = (long) Math.ceil(count * percentile);
+    long seen = 0;
+    for (int micros = 0; micros < histogram.length; micros++) {
+      seen += histogram[micros];
+      if (seen >= threshold) {
+        return micros;
+      }
+    }
+    return MAX_RECORDED_MICROS;
+  }
+
+  private void writeBaseline(Path baselineFile, Properties measured, long cycles, String logLevel)
+      throws IOException {
+    Properties baseline = new Properties();
+    baseline.putAll(measured);
+    baseline.setProperty("reference.cycles", String.valueOf(cycles));
+    baseline.setProperty("reference.log.level", logLevel);
+    baseline.setProperty("reference.java.version", System.getProperty("java.version"));
+    baseline.setProperty(
+        "reference.os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+    baseline.setProperty(
+        "reference.processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+    try (OutputStream out = Files.newOutputStream(baselineFile)) {
+      baseline.store(out, "DalyBms soak test baseline, see DalyBmsSoakTest");
+    }
+    Logger.info("soak baseline written to {}", baselineFile.toAbsolutePath());
+  }
+
+  private void checkBaseline(Path baselineFile, Properties measured, double tolerance)
+      throws IOException {
+    Properties baseline = new Properties();
+    try (InputStream in = Files.newInputStream(baselineFile)) {
+      baseline.load(in);
+    }
+    Logger.info(
+        "comparing with baseline measured with {} cycles on Java {}, {}",
+        baseline.getProperty("reference.cycles"),
+        baseline.getProperty("reference.java.version"),
+        baseline.getProperty("reference.os"));
+    for (String key : measured.stringPropertyNames()) {
+      assert baseline.containsKey(key) : "baseline " + baselineFile + " has no value for " + key;
+      long value = Long.parseLong(measured.getProperty(key));
+      long expected = Math.max(0, Long.parseLong(baseline.getProperty(key)));
+      long limit = (long) (expected * tolerance);
+      if (HEAP_SLOPE.equals(key)) {
+        // heap samples after GC still vary slightly, a flat baseline needs some headroom
+        limit += HEAP_SLOPE_NOISE_BYTES;
+      }
+      assert value <= limit
+          : String.format("%s regressed: measured %d, baseline limit %d", key, value, limit);
+    }
+  }
+}
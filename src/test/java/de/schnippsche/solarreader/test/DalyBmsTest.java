@@ -26,6 +26,8 @@ import de.schnippsche.solarreader.backend.connection.usb.UsbConnection;
 import de.schnippsche.solarreader.database.ProviderData;
 import de.schnippsche.solarreader.plugins.dalybms.DalyBms;
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
 
@@ -34,13 +36,8 @@ class DalyBmsTest {
   void test() throws Exception {
     GeneralTestHelper generalTestHelper = new GeneralTestHelper();
     DalyBmsUsbConnection connection = new DalyBmsUsbConnection();
-    ConnectionFactory<UsbConnection> testFactory = knownConfiguration -> connection;
     ProviderData providerData = new ProviderData();
-    providerData.setName("DalyBMS Test");
-    providerData.setPluginName("DalyBms");
-    DalyBms provider = new DalyBms(testFactory);
-    providerData.setSetting(provider.getDefaultProviderSetting());
-    provider.setProviderData(providerData);
+    DalyBms provider = createProvider(connection, providerData);
     generalTestHelper.testProviderInterface(provider);
     Map<String, Object> variables = providerData.getResultVariables();
     assert new BigDecimal(1).equals(variables.get("count_sensors"));
@@ -49,10 +46,99 @@ class DalyBmsTest {
     assert new BigDecimal("3.74").equals(variables.get("Min_Spannung"));
     assert new BigDecimal("3.784").equals(variables.get("Max_Spannung"));
     assert new BigDecimal("25.6").equals(variables.get("Ampere"));
+    assert String.valueOf(variables.get("fresh_commands")).contains("0x90");
     // Error behavior
     variables.clear();
     connection.setError(true);
     boolean result = provider.doActivityWork(variables);
     assert (!result);
   }
+
+  @Test
+  void testCycleBudget() throws Exception {
+    GeneralTestHelper generalTestHelper = new GeneralTestHelper();
+    DalyBmsUsbConnection connection = new DalyBmsUsbConnection();
+    ProviderData providerData = new ProviderData();
+    DalyBms provider = createProvider(connection, providerData);
+    generalTestHelper.testProviderInterface(provider);
+    // all commands are read fresh, high priority commands come first
+    assert provider.doActivityWork(new HashMap<>());
+    List<Integer> sent = connection.getSentCommands();
+    assert sent.indexOf(0x90) < sent.indexOf(0x97) && sent.indexOf(0x90) < sent.indexOf(0x98);
+    assert sent.indexOf(0x95) < sent.indexOf(0x97) && sent.indexOf(0x95) < sent.indexOf(0x98);
+    // a budget below the read timeout of 5 seconds leaves only room for high priority commands
+    providerData.getSetting().setConfigurationValue("cycle_budget_seconds", "1");
+    connection.setDelayMillis(100);
+    Map<String, Object> variables = new HashMap<>();
+    long start = System.nanoTime();
+    assert provider.doActivityWork(variables);
+    assert System.nanoTime() - start < 1_000_000_000L;
+    assert List.of(0x90, 0x95).equals(connection.getSentCommands());
+    assert "0x90,0x95".equals(variables.get("fresh_commands"));
+    assert String.valueOf(variables.get("stale_commands")).contains("0x98");
+    // stale commands are served from the cache of the previous cycle
+    assert new BigDecimal(16).equals(variables.get("BMS_Zyklen"));
+    assert variables.containsKey("Fehlercode_0");
+  }
+
+  @Test
+  void testCycleBudgetWithoutCache() throws Exception {
+    DalyBmsUsbConnection connection = new DalyBmsUsbConnection();
+    ProviderData providerData = new ProviderData();
+    DalyBms provider = createProvider(connection, providerData);
+    providerData.getSetting().setConfigurationValue("cycle_budget_seconds", "1");
+    provider.doOnFirstRun();
+    connection.setDelayMillis(100);
+    Map<String, Object> variables = new HashMap<>();
+    long start = System.nanoTime();
+    assert provider.doActivityWork(variables);
+    assert System.nanoTime() - start < 1_000_000_000L;
+    assert String.valueOf(variables.get("stale_commands")).contains("0x97");
+    assert String.valueOf(variables.get("stale_commands")).contains("0x98");
+    // nothing cached yet, so the stale commands produce no values
+    assert !variables.containsKey("Zelle_1_Balance");
+    assert !variables.containsKey("Fehlercode_0");
+    assert variables.containsKey("Spannung_Zelle_1");
+  }
+
+  @Test
+  void testInvalidCycleBudget() throws Exception {
+    DalyBmsUsbConnection connection = new DalyBmsUsbConnection();
+    ProviderData providerData = new ProviderData();
+    DalyBms provider = createProvider(connection, providerData);
+    providerData.getSetting().setConfigurationValue("cycle_budget_seconds", "0");
+    provider.doOnFirstRun();
+    // a budget of 0 falls back to the default, all commands are read fresh
+    Map<String, Object> variables = new HashMap<>();
+    assert provider.doActivityWork(variables);
+    assert "".equals(variables.get("stale_commands"));
+    assert String.valueOf(variables.get("fresh_commands")).contains("0x98");
+    assert variables.containsKey("Fehlercode_0");
+  }
+
+  @Test
+  void testHighPriorityCommandWithoutCacheAfterDeadline() throws Exception {
+    DalyBmsUsbConnection connection = new DalyBmsUsbConnection();
+    ProviderData providerData = new ProviderData();
+    DalyBms provider = createProvider(connection, providerData);
+    providerData.getSetting().setConfigurationValue("cycle_budget_seconds", "1");
+    provider.doOnFirstRun();
+    // the first read of 0x90 outlasts the budget and fails, there is no cached frame
+    connection.setDelayMillis(1100);
+    connection.setFailEvery(1);
+    long start = System.nanoTime();
+    assert !provider.doActivityWork(new HashMap<>());
+    assert List.of(0x90).equals(connection.getSentCommands());
+    assert System.nanoTime() - start < 2_000_000_000L;
+  }
+
+  private DalyBms createProvider(DalyBmsUsbConnection connection, ProviderData providerData) {
+    ConnectionFactory<UsbConnection> testFactory = knownConfiguration -> connection;
+    providerData.setName("DalyBMS Test");
+    providerData.setPluginName("DalyBms");
+    DalyBms provider = new DalyBms(testFactory);
+    providerData.setSetting(provider.getDefaultProviderSetting());
+    provider.setProviderData(providerData);
+    return provider;
+  }
 }
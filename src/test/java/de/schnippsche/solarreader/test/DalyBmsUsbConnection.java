@@ -24,6 +24,8 @@ package de.schnippsche.solarreader.test;
 import de.schnippsche.solarreader.backend.connection.usb.UsbConnection;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
 import org.tinylog.Logger;
 
 public class DalyBmsUsbConnection implements UsbConnection {
@@ -31,11 +33,27 @@ public class DalyBmsUsbConnection implements UsbConnection {
   private String result = null;
   private boolean open = false;
   private boolean markError = false;
+  private long delayMillis = 0;
+  private int failEvery = 0;
+  private long writeCount = 0;
+  private final List<Integer> sentCommands = new ArrayList<>();
 
   public void setError(boolean markError) {
     this.markError = markError;
   }
 
+  public void setDelayMillis(long delayMillis) {
+    this.delayMillis = delayMillis;
+  }
+
+  public void setFailEvery(int failEvery) {
+    this.failEvery = failEvery;
+  }
+
+  public List<Integer> getSentCommands() {
+    return sentCommands;
+  }
+
   @Override
   public void connect() throws ConnectException {
     Logger.debug("openPort");
@@ -43,6 +61,7 @@ public class DalyBmsUsbConnection implements UsbConnection {
       throw new ConnectException("Port already in use");
     }
     open = true;
+    sentCommands.clear();
   }
 
   @Override
@@ -60,6 +79,20 @@ public class DalyBmsUsbConnection implements UsbConnection {
 
     assert (bytes != null);
     int command = (bytes[2] & 0xFF);
+    sentCommands.add(command);
+    if (delayMillis > 0) {
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted", e);
+      }
+    }
+    writeCount++;
+    if (failEvery > 0 && writeCount % failEvery == 0) {
+      result = null;
+      return 0;
+    }
 
     switch (command) {
       case 0x90: